@@ -6,6 +6,7 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.HttpStatusCodeException;
 import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
@@ -64,6 +65,36 @@ public class ApiClientService {
             return Optional.empty();
         }
 
+        if (useMockApi) {
+            return fetchAspnIdMock(rxDataId);
+        }
+
+        try {
+            return fetchAspnIdReal(rxDataId);
+        } catch (HttpStatusCodeException e) {
+            logger.error("API returned error status for rxDataId: {}, Status: {}, Body: {}", 
+                    rxDataId, e.getStatusCode(), e.getResponseBodyAsString(), e);
+        } catch (RestClientException e) {
+            logger.error("Error calling API for rxDataId: {}", rxDataId, e);
+        }
+        
+        return Optional.empty();
+    }
+
+    /**
+     * Fetches ASPN_ID like fetchAspnId, but throws on transport or server errors
+     * so callers can tell a failed call from an rxDataId that has no ASPN_ID
+     * 
+     * @param rxDataId the RX data ID to query
+     * @return Optional containing ASPN_ID if found, empty if the API has none
+     * @throws RestClientException if the API call failed
+     */
+    public Optional<String> resolveAspnId(String rxDataId) {
+        if (rxDataId == null || rxDataId.isEmpty()) {
+            logger.warn("Attempted to fetch ASPN_ID with null or empty rxDataId");
+            return Optional.empty();
+        }
+
         return useMockApi ? 
                 fetchAspnIdMock(rxDataId) : 
                 fetchAspnIdReal(rxDataId);
@@ -98,42 +129,41 @@ public class ApiClientService {
     
     /**
      * REAL implementation: Actually calls the external API to fetch ASPN_ID
+     * A 404 or a response without AspnID means not found; other failures are thrown
      */
     private Optional<String> fetchAspnIdReal(String rxDataId) {
         String url = apiUrl + "/" + rxDataId;
         logger.info("Making REAL API call to: {}", url);
 
+        ResponseEntity<ApiResponse> response;
         try {
-            ResponseEntity<ApiResponse> response = restTemplate.getForEntity(url, ApiResponse.class);
-            
-            if (response.getStatusCode().is2xxSuccessful() && response.getBody() != null) {
-                ApiResponse apiResponse = response.getBody();
-                
-                // Check if there are any errors returned by the API
-                if (apiResponse.getErrors() != null && !apiResponse.getErrors().isEmpty()) {
-                    logger.warn("API returned errors for rxDataId: {}: {}", rxDataId, apiResponse.getErrors());
-                    return Optional.empty();
-                }
-                
-                // Check if AspnID is present
-                if (apiResponse.getAspnID() != null && apiResponse.getAspnID() > 0) {
-                    String aspnId = "ASPN_" + apiResponse.getAspnID();
-                    logger.info("Successfully retrieved ASPN_ID: {} for rxDataId: {}", aspnId, rxDataId);
-                    return Optional.of(aspnId);
-                } else {
-                    logger.info("No ASPN_ID found for rxDataId: {}", rxDataId);
-                }
-            } else {
-                logger.warn("Failed API call for rxDataId: {}, Status: {}", rxDataId, 
-                        response.getStatusCode());
-            }
-        } catch (HttpStatusCodeException e) {
-            logger.error("API returned error status for rxDataId: {}, Status: {}, Body: {}", 
-                    rxDataId, e.getStatusCode(), e.getResponseBodyAsString(), e);
-        } catch (RestClientException e) {
-            logger.error("Error calling API for rxDataId: {}", rxDataId, e);
+            response = restTemplate.getForEntity(url, ApiResponse.class);
+        } catch (HttpClientErrorException.NotFound e) {
+            logger.info("No ASPN_ID found for rxDataId: {} (404)", rxDataId);
+            return Optional.empty();
+        }
+        
+        if (!response.getStatusCode().is2xxSuccessful() || response.getBody() == null) {
+            throw new RestClientException("Failed API call for rxDataId: " + rxDataId 
+                    + ", Status: " + response.getStatusCode());
+        }
+        
+        ApiResponse apiResponse = response.getBody();
+        
+        // Check if there are any errors returned by the API
+        if (apiResponse.getErrors() != null && !apiResponse.getErrors().isEmpty()) {
+            logger.warn("API returned errors for rxDataId: {}: {}", rxDataId, apiResponse.getErrors());
+            return Optional.empty();
+        }
+        
+        // Check if AspnID is present
+        if (apiResponse.getAspnID() != null && apiResponse.getAspnID() > 0) {
+            String aspnId = "ASPN_" + apiResponse.getAspnID();
+            logger.info("Successfully retrieved ASPN_ID: {} for rxDataId: {}", aspnId, rxDataId);
+            return Optional.of(aspnId);
         }
         
+        logger.info("No ASPN_ID found for rxDataId: {}", rxDataId);
         return Optional.empty();
     }
 
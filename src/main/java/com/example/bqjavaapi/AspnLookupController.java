@@ -0,0 +1,94 @@
+package com.example.bqjavaapi;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+@RestController
+@RequestMapping("/api/aspn-ids")
+public class AspnLookupController {
+    private static final Logger logger = LoggerFactory.getLogger(AspnLookupController.class);
+
+    private final AspnLookupService lookupService;
+
+    public AspnLookupController(AspnLookupService lookupService) {
+        this.lookupService = lookupService;
+    }
+
+    /**
+     * Looks up the ASPN_ID for a single rxDataId
+     * The request is micro-batched with other concurrent lookups by AspnLookupService
+     *
+     * @param rxDataId the RX data ID to resolve
+     * @return 200 with the ASPN_ID, 404 if none was found, 503 if the API call failed, was rejected or timed out
+     */
+    @GetMapping("/{rxDataId}")
+    public CompletableFuture<ResponseEntity<LookupResponse>> getAspnId(@PathVariable String rxDataId) {
+        return toResponse(rxDataId, lookupService.lookup(rxDataId, null));
+    }
+
+    /**
+     * Looks up the ASPN_ID for an rxDataId and queues a write-back of it to the BigQuery record with this uuid
+     * Kept off GET because it modifies data and must not be replayed by retries, prefetchers or caches
+     *
+     * @param rxDataId the RX data ID to resolve
+     * @param uuid the record UUID to write the ASPN_ID to
+     * @return same as the GET lookup, or 403 if write-back is disabled
+     */
+    @PostMapping("/{rxDataId}/write-back")
+    public CompletableFuture<ResponseEntity<LookupResponse>> writeBackAspnId(
+            @PathVariable String rxDataId,
+            @RequestParam String uuid) {
+        if (!lookupService.isWriteBackEnabled()) {
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.FORBIDDEN)
+                    .body(new LookupResponse(rxDataId, null)));
+        }
+        return toResponse(rxDataId, lookupService.lookup(rxDataId, uuid));
+    }
+
+    private CompletableFuture<ResponseEntity<LookupResponse>> toResponse(
+            String rxDataId, CompletableFuture<Optional<String>> lookup) {
+        return lookup.handle((aspnIdOpt, ex) -> {
+            if (ex != null) {
+                logger.warn("Lookup failed for rxDataId: {}: {}", rxDataId, ex.toString());
+                return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                        .body(new LookupResponse(rxDataId, null));
+            }
+            return aspnIdOpt
+                    .map(aspnId -> ResponseEntity.ok(new LookupResponse(rxDataId, aspnId)))
+                    .orElseGet(() -> ResponseEntity.status(HttpStatus.NOT_FOUND)
+                            .body(new LookupResponse(rxDataId, null)));
+        });
+    }
+
+    /**
+     * Response body for the lookup endpoint
+     */
+    public static class LookupResponse {
+        private final String rxDataId;
+        private final String aspnId;
+
+        public LookupResponse(String rxDataId, String aspnId) {
+            this.rxDataId = rxDataId;
+            this.aspnId = aspnId;
+        }
+
+        public String getRxDataId() {
+            return rxDataId;
+        }
+
+        public String getAspnId() {
+            return aspnId;
+        }
+    }
+}
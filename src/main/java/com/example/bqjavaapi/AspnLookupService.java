@@ -0,0 +1,428 @@
+package com.example.bqjavaapi;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+@Service
+public class AspnLookupService {
+    private static final Logger logger = LoggerFactory.getLogger(AspnLookupService.class);
+
+    private final ApiClientService apiService;
+    private final BigQueryService bqService;
+    private final int maxBatchSize;
+    private final long maxWaitMs;
+    private final long timeoutMs;
+    private final long notFoundTtlNanos;
+    private final boolean writeBackEnabled;
+    private final long sloMs;
+
+    private final BlockingQueue<PendingLookup> pending;
+    private final BlockingQueue<WriteBack> writeBackQueue;
+    private final Map<String, CachedResult> cache;
+    private final Map<String, CompletableFuture<Optional<String>>> inFlight = new ConcurrentHashMap<>();
+    private final Set<String> queuedWriteBackUuids = ConcurrentHashMap.newKeySet();
+    private final Map<String, String> writtenUuids;
+    private final ExecutorService lookupPool;
+    private Thread dispatcher;
+    private Thread writeBackWorker;
+    private volatile boolean running = true;
+    private volatile boolean writeBackOpen = true;
+
+    // Running totals used for the periodic latency summary
+    private final AtomicLong batchesDispatched = new AtomicLong();
+    private final AtomicLong requestsServed = new AtomicLong();
+    private final AtomicLong apiCalls = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong inFlightJoins = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong droppedWriteBacks = new AtomicLong();
+    private final AtomicLong sloBreaches = new AtomicLong();
+    private final AtomicLong maxLatencyMs = new AtomicLong();
+
+    public AspnLookupService(ApiClientService apiService, BigQueryService bqService,
+                             @Value("${app.lookup.max-batch-size:50}") int maxBatchSize,
+                             @Value("${app.lookup.max-wait-ms:10}") long maxWaitMs,
+                             @Value("${app.lookup.max-pending:1000}") int maxPending,
+                             @Value("${app.lookup.timeout-ms:2000}") long timeoutMs,
+                             @Value("${app.lookup.cache-size:10000}") int cacheSize,
+                             @Value("${app.lookup.not-found-ttl-ms:30000}") long notFoundTtlMs,
+                             @Value("${app.lookup.write-back:false}") boolean writeBackEnabled,
+                             @Value("${app.lookup.max-pending-write-backs:1000}") int maxPendingWriteBacks,
+                             @Value("${app.lookup.slo-ms:500}") long sloMs,
+                             @Value("${app.concurrency:10}") int concurrency) {
+        this.apiService = apiService;
+        this.bqService = bqService;
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitMs = maxWaitMs;
+        this.timeoutMs = timeoutMs;
+        this.notFoundTtlNanos = TimeUnit.MILLISECONDS.toNanos(notFoundTtlMs);
+        this.writeBackEnabled = writeBackEnabled;
+        this.sloMs = sloMs;
+
+        // Both the request queue and the API pool's work queue are bounded so overload is rejected, not queued
+        this.pending = new LinkedBlockingQueue<>(maxPending);
+        this.writeBackQueue = new LinkedBlockingQueue<>(maxPendingWriteBacks);
+        this.lookupPool = new ThreadPoolExecutor(concurrency, concurrency, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(maxPending));
+
+        // Bounded LRU caches shared by all callers of the endpoint
+        this.cache = lruMap(cacheSize);
+        this.writtenUuids = lruMap(cacheSize);
+
+        logger.info("Initialized AspnLookupService with maxBatchSize={}, maxWaitMs={}, maxPending={}, timeoutMs={}, cacheSize={}, notFoundTtlMs={}, writeBack={}, sloMs={}, concurrency={}",
+                maxBatchSize, maxWaitMs, maxPending, timeoutMs, cacheSize, notFoundTtlMs, writeBackEnabled, sloMs, concurrency);
+    }
+
+    private static <V> Map<String, V> lruMap(int maxSize) {
+        return Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                return size() > maxSize;
+            }
+        });
+    }
+
+    /**
+     * Starts the dispatcher and write-back threads once the bean is fully constructed
+     */
+    @PostConstruct
+    public void start() {
+        dispatcher = new Thread(this::dispatchLoop, "aspn-lookup-dispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+
+        writeBackWorker = new Thread(this::writeBackLoop, "aspn-lookup-write-back");
+        writeBackWorker.setDaemon(true);
+        writeBackWorker.start();
+    }
+
+    /**
+     * Queues a lookup for the next micro-batch
+     * - Requests arriving within maxWaitMs of each other are resolved together
+     * - If uuid is provided and write-back is enabled, a found ASPN_ID is also written to BigQuery
+     * - Fails with RejectedExecutionException when the queue is full and TimeoutException after timeoutMs
+     *
+     * @param rxDataId the RX data ID to resolve
+     * @param uuid optional record UUID for write-back, may be null
+     * @return future completed with the ASPN_ID if found, empty otherwise
+     */
+    public CompletableFuture<Optional<String>> lookup(String rxDataId, String uuid) {
+        CompletableFuture<Optional<String>> future = new CompletableFuture<>();
+        if (rxDataId == null || rxDataId.isEmpty()) {
+            future.complete(Optional.empty());
+            return future;
+        }
+        if (!running) {
+            future.completeExceptionally(new IllegalStateException("Lookup service is shutting down"));
+            return future;
+        }
+
+        PendingLookup lookup = new PendingLookup(rxDataId, uuid, future);
+        if (!pending.offer(lookup)) {
+            rejected.incrementAndGet();
+            future.completeExceptionally(new RejectedExecutionException("Lookup queue is full"));
+            return future;
+        }
+        // Shutdown may have drained the queue between the running check and the offer
+        if (!running && pending.remove(lookup)) {
+            future.completeExceptionally(new IllegalStateException("Lookup service is shutting down"));
+            return future;
+        }
+        return future.orTimeout(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Collects pending requests into batches bounded by size and max wait, then dispatches them
+     */
+    private void dispatchLoop() {
+        while (running || !pending.isEmpty()) {
+            try {
+                PendingLookup first = pending.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+
+                List<PendingLookup> batch = new ArrayList<>(maxBatchSize);
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+                while (batch.size() < maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    PendingLookup next = pending.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+
+                resolveBatch(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                logger.error("Unexpected error in lookup dispatcher", e);
+            }
+        }
+    }
+
+    /**
+     * Resolves one micro-batch
+     * - Dedupes by rxDataId so each distinct ID costs at most one API call
+     * - Attaches to an API call already in flight from an earlier batch instead of starting another
+     * - Serves cached ASPN_IDs (and recent not-found results) without calling the API
+     * - Completes every waiting caller once its ID is resolved
+     */
+    private void resolveBatch(List<PendingLookup> batch) {
+        Instant batchStart = Instant.now();
+
+        Map<String, List<PendingLookup>> byRxDataId = new LinkedHashMap<>();
+        for (PendingLookup lookup : batch) {
+            byRxDataId.computeIfAbsent(lookup.rxDataId, k -> new ArrayList<>()).add(lookup);
+        }
+
+        int hits = 0;
+        long now = System.nanoTime();
+        for (Map.Entry<String, List<PendingLookup>> entry : byRxDataId.entrySet()) {
+            String rxDataId = entry.getKey();
+            List<PendingLookup> waiters = entry.getValue();
+
+            // Check inFlight before cache: workers cache a result before leaving inFlight, so a call
+            // missing from inFlight has either already been cached or was never started.
+            // Only the dispatcher thread adds to inFlight, so get-then-start cannot race.
+            CompletableFuture<Optional<String>> call = inFlight.get(rxDataId);
+            if (call != null) {
+                inFlightJoins.incrementAndGet();
+            } else {
+                CachedResult cached = cache.get(rxDataId);
+                if (cached != null && !cached.isExpired(now)) {
+                    hits++;
+                    complete(waiters, cached.aspnId);
+                    continue;
+                }
+                call = startApiCall(rxDataId);
+            }
+            call.whenComplete((aspnIdOpt, ex) -> {
+                if (ex != null) {
+                    fail(waiters, ex);
+                } else {
+                    complete(waiters, aspnIdOpt);
+                }
+            });
+        }
+
+        cacheHits.addAndGet(hits);
+        requestsServed.addAndGet(batch.size());
+        long batches = batchesDispatched.incrementAndGet();
+
+        logger.debug("Dispatched batch of {} requests ({} distinct, {} cache hits) in {} ms",
+                batch.size(), byRxDataId.size(), hits, Duration.between(batchStart, Instant.now()).toMillis());
+        if (batches % 100 == 0) {
+            logger.info("Lookup stats: batches={}, requests={}, apiCalls={}, cacheHits={}, inFlightJoins={}, rejected={}, sloBreaches={} (>{} ms), maxLatency={} ms",
+                    batches, requestsServed.get(), apiCalls.get(), cacheHits.get(), inFlightJoins.get(),
+                    rejected.get(), sloBreaches.get(), sloMs, maxLatencyMs.get());
+        }
+    }
+
+    /**
+     * Starts the single API call for an rxDataId and registers it as in flight until it completes
+     */
+    private CompletableFuture<Optional<String>> startApiCall(String rxDataId) {
+        CompletableFuture<Optional<String>> call = new CompletableFuture<>();
+        inFlight.put(rxDataId, call);
+        apiCalls.incrementAndGet();
+        try {
+            lookupPool.execute(() -> {
+                try {
+                    // Failed calls throw and are never cached, so they surface as errors rather than not-found
+                    Optional<String> aspnIdOpt = apiService.resolveAspnId(rxDataId);
+                    // Cache before leaving inFlight so a dispatcher that misses inFlight then finds the cache
+                    if (aspnIdOpt.isPresent()) {
+                        cache.put(rxDataId, new CachedResult(aspnIdOpt, CachedResult.NEVER));
+                    } else if (notFoundTtlNanos > 0) {
+                        cache.put(rxDataId, new CachedResult(aspnIdOpt, System.nanoTime() + notFoundTtlNanos));
+                    }
+                    inFlight.remove(rxDataId);
+                    call.complete(aspnIdOpt);
+                } catch (Exception e) {
+                    logger.error("Error resolving rxDataId: {}", rxDataId, e);
+                    inFlight.remove(rxDataId);
+                    call.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            inFlight.remove(rxDataId);
+            call.completeExceptionally(e);
+        }
+        return call;
+    }
+
+    private void complete(List<PendingLookup> waiters, Optional<String> aspnIdOpt) {
+        for (PendingLookup waiter : waiters) {
+            if (writeBackEnabled && aspnIdOpt.isPresent() && waiter.uuid != null && !waiter.uuid.isEmpty()) {
+                queueWriteBack(waiter.uuid, aspnIdOpt.get());
+            }
+            recordLatency(waiter);
+            waiter.future.complete(aspnIdOpt);
+        }
+    }
+
+    private void fail(List<PendingLookup> waiters, Throwable ex) {
+        for (PendingLookup waiter : waiters) {
+            recordLatency(waiter);
+            waiter.future.completeExceptionally(ex);
+        }
+    }
+
+    /**
+     * Queues at most one BigQuery update per uuid, skipping uuids already written with the same ASPN_ID
+     */
+    private void queueWriteBack(String uuid, String aspnId) {
+        if (aspnId.equals(writtenUuids.get(uuid)) || !queuedWriteBackUuids.add(uuid)) {
+            return;
+        }
+        if (!writeBackQueue.offer(new WriteBack(uuid, aspnId))) {
+            queuedWriteBackUuids.remove(uuid);
+            droppedWriteBacks.incrementAndGet();
+            logger.warn("Write-back queue is full, dropping update for record {}", uuid);
+        }
+    }
+
+    /**
+     * Tracks end-to-end latency (queueing + batching + API call) against the configured SLO
+     */
+    private void recordLatency(PendingLookup waiter) {
+        long latencyMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - waiter.enqueuedAtNanos);
+        maxLatencyMs.accumulateAndGet(latencyMs, Math::max);
+        if (latencyMs > sloMs) {
+            sloBreaches.incrementAndGet();
+            logger.debug("Lookup for rxDataId: {} took {} ms (SLO: {} ms)", waiter.rxDataId, latencyMs, sloMs);
+        }
+    }
+
+    /**
+     * Drains the write-back queue so BigQuery updates never sit on the request path
+     */
+    private void writeBackLoop() {
+        while (writeBackOpen || !writeBackQueue.isEmpty()) {
+            try {
+                WriteBack update = writeBackQueue.poll(100, TimeUnit.MILLISECONDS);
+                if (update == null) {
+                    continue;
+                }
+                try {
+                    if (bqService.updateAspnId(update.uuid, update.aspnId)) {
+                        writtenUuids.put(update.uuid, update.aspnId);
+                    }
+                } finally {
+                    queuedWriteBackUuids.remove(update.uuid);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                logger.error("Error writing back ASPN_ID to BigQuery", e);
+            }
+        }
+    }
+
+    public boolean isWriteBackEnabled() {
+        return writeBackEnabled;
+    }
+
+    long getBatchesDispatched() {
+        return batchesDispatched.get();
+    }
+
+    long getApiCalls() {
+        return apiCalls.get();
+    }
+
+    /**
+     * Stops accepting lookups, drains in-flight batches and pending write-backs,
+     * and fails any lookup that arrived after the dispatcher stopped
+     */
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        running = false;
+        dispatcher.join(TimeUnit.SECONDS.toMillis(10));
+
+        List<PendingLookup> leftover = new ArrayList<>();
+        pending.drainTo(leftover);
+        fail(leftover, new IllegalStateException("Lookup service is shutting down"));
+
+        lookupPool.shutdown();
+        lookupPool.awaitTermination(30, TimeUnit.SECONDS);
+        writeBackOpen = false;
+        writeBackWorker.join(TimeUnit.SECONDS.toMillis(30));
+        logger.info("AspnLookupService stopped: batches={}, requests={}, apiCalls={}, cacheHits={}, inFlightJoins={}, rejected={}, sloBreaches={}, droppedWriteBacks={}, unflushedWriteBacks={}",
+                batchesDispatched.get(), requestsServed.get(), apiCalls.get(), cacheHits.get(), inFlightJoins.get(),
+                rejected.get(), sloBreaches.get(), droppedWriteBacks.get(), writeBackQueue.size());
+    }
+
+    /**
+     * A single caller waiting for its rxDataId to be resolved
+     */
+    private static class PendingLookup {
+        private final String rxDataId;
+        private final String uuid;
+        private final CompletableFuture<Optional<String>> future;
+        private final long enqueuedAtNanos = System.nanoTime();
+
+        PendingLookup(String rxDataId, String uuid, CompletableFuture<Optional<String>> future) {
+            this.rxDataId = rxDataId;
+            this.uuid = uuid;
+            this.future = future;
+        }
+    }
+
+    /**
+     * A cached API result; found ASPN_IDs never expire, not-found results expire after notFoundTtlMs
+     */
+    private static class CachedResult {
+        private static final long NEVER = Long.MIN_VALUE;
+
+        private final Optional<String> aspnId;
+        private final long expiresAtNanos;
+
+        CachedResult(Optional<String> aspnId, long expiresAtNanos) {
+            this.aspnId = aspnId;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+
+        boolean isExpired(long nowNanos) {
+            return expiresAtNanos != NEVER && nowNanos - expiresAtNanos >= 0;
+        }
+    }
+
+    /**
+     * A resolved ASPN_ID waiting to be written back to BigQuery
+     */
+    private static class WriteBack {
+        private final String uuid;
+        private final String aspnId;
+
+        WriteBack(String uuid, String aspnId) {
+            this.uuid = uuid;
+            this.aspnId = aspnId;
+        }
+    }
+}
@@ -10,6 +10,7 @@ import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Service
 public class BigQueryService {
@@ -64,26 +65,81 @@ public class BigQueryService {
                 .addNamedParameter("limit", QueryParameterValue.int64(queryLimit))
                 .build();
 
-        List<Record> records = new ArrayList<>();
         try {
-            TableResult result = bigQuery.query(queryConfig);
-            result.iterateAll().forEach(row -> {
-                String uuid = row.get("uuid").getStringValue();
-                String rxDataId = row.get("rx_data_id").getStringValue();
-                records.add(new Record(uuid, rxDataId));
-            });
-            
-            // Calculate and log the query execution time
-            Instant endTime = Instant.now();
-            Duration duration = Duration.between(startTime, endTime);
-            
-            logger.info("Retrieved {} records from BigQuery in {} ms", 
-                     records.size(), duration.toMillis());
+            return runFetchQuery(queryConfig, startTime, null);
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
             logger.error("Query execution interrupted", e);
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Fetches a page of records needing ASPN_ID using keyset pagination on uuid
+     * Pages are ordered by uuid so consecutive calls never return the same record
+     * @param afterUuid only return records with a uuid greater than this, or null for the first page
+     * @param limit maximum number of records to fetch
+     * @param maxBytesBilled BigQuery fails the query instead of billing more than this, or null for no cap
+     * @param bytesBilled accumulator the query's billed bytes are added to, or null
+     * @return List of Records with UUID and RxDataId, empty only when no records remain
+     * @throws BigQueryException if the query fails, including when it would exceed maxBytesBilled
+     */
+    public List<Record> fetchRecordsNeedingAspnId(String afterUuid, int limit, Long maxBytesBilled,
+                                                  AtomicLong bytesBilled) throws InterruptedException {
+        logger.info("Fetching page of up to {} records after uuid {}", limit, afterUuid);
+        
+        Instant startTime = Instant.now();
+        String fullTableName = String.format("`%s.%s.%s`", projectId, dataset, table);
+        
+        String query = String.format("SELECT uuid, rx_data_id FROM %s " +
+                       "WHERE (aspn_id IS NULL OR aspn_id != 0) " + 
+                       "AND rx_data_id IS NOT NULL " +
+                       "AND uuid > @afterUuid " +
+                       "ORDER BY uuid " +
+                       "LIMIT @limit", fullTableName);
+
+        logger.debug("Executing query: {}", query);
+        
+        QueryJobConfiguration.Builder queryConfig = QueryJobConfiguration.newBuilder(query)
+                .addNamedParameter("afterUuid", QueryParameterValue.string(afterUuid != null ? afterUuid : ""))
+                .addNamedParameter("limit", QueryParameterValue.int64(limit));
+        if (maxBytesBilled != null) {
+            queryConfig.setMaximumBytesBilled(maxBytesBilled);
         }
 
+        return runFetchQuery(queryConfig.build(), startTime, bytesBilled);
+    }
+
+    /**
+     * Runs a SELECT as a job so its billing statistics can be recorded
+     * @throws BigQueryException if the job fails
+     */
+    private List<Record> runFetchQuery(QueryJobConfiguration queryConfig, Instant startTime,
+                                       AtomicLong bytesBilled) throws InterruptedException {
+        Job job = bigQuery.create(JobInfo.of(queryConfig)).waitFor();
+        if (job == null) {
+            throw new BigQueryException(BigQueryException.UNKNOWN_CODE, "Fetch job no longer exists");
+        }
+        BigQueryError error = job.getStatus().getError();
+        if (error != null) {
+            throw new BigQueryException(BigQueryException.UNKNOWN_CODE, error.getMessage(), error);
+        }
+        recordBytesBilled(job, bytesBilled);
+        
+        List<Record> records = new ArrayList<>();
+        TableResult result = job.getQueryResults();
+        result.iterateAll().forEach(row -> {
+            String uuid = row.get("uuid").getStringValue();
+            String rxDataId = row.get("rx_data_id").getStringValue();
+            records.add(new Record(uuid, rxDataId));
+        });
+        
+        // Calculate and log the query execution time
+        Instant endTime = Instant.now();
+        Duration duration = Duration.between(startTime, endTime);
+        
+        logger.info("Retrieved {} records from BigQuery in {} ms", 
+                 records.size(), duration.toMillis());
         return records;
     }
 
@@ -94,6 +150,17 @@ public class BigQueryService {
      * @return true if update was successful
      */
     public boolean updateAspnId(String uuid, String aspnId) {
+        return updateAspnId(uuid, aspnId, null);
+    }
+
+    /**
+     * Updates a record in BigQuery with the ASPIN_ID and reports the bytes billed
+     * @param uuid the unique identifier for the record
+     * @param aspnId the ASPN_ID to update
+     * @param bytesBilled accumulator the update's billed bytes are added to, or null
+     * @return true if update was successful
+     */
+    public boolean updateAspnId(String uuid, String aspnId, AtomicLong bytesBilled) {
         logger.info("Updating record {} with ASPN_ID: {}", uuid, aspnId);
         
         // Start timing the update operation
@@ -128,6 +195,7 @@ public class BigQueryService {
             JobInfo jobInfo = JobInfo.of(queryConfig);
             Job job = bigQuery.create(jobInfo);
             job = job.waitFor();
+            recordBytesBilled(job, bytesBilled);
 
             // Calculate and log the update execution time
             Instant endTime = Instant.now();
@@ -146,4 +214,14 @@ public class BigQueryService {
             return false;
         }
     }
+
+    private void recordBytesBilled(Job job, AtomicLong bytesBilled) {
+        if (bytesBilled == null || job == null || job.getStatistics() == null) {
+            return;
+        }
+        JobStatistics.QueryStatistics stats = job.getStatistics();
+        if (stats.getTotalBytesBilled() != null) {
+            bytesBilled.addAndGet(stats.getTotalBytesBilled());
+        }
+    }
 }
@@ -11,13 +11,21 @@ public class BqJavaApiApplication implements CommandLineRunner {
     @Autowired
     private AspnIdUpdater aspnIdUpdater;
 
+    @Autowired
+    private DeadlineRunScheduler runScheduler;
+
     public static void main(String[] args) {
         SpringApplication.run(BqJavaApiApplication.class, args);
     }
 
     @Override
     public void run(String... args) throws Exception {
-        aspnIdUpdater.runBatchJob();
+        if (runScheduler.isEnabled()) {
+            // Deadline-aware run: resolve as many records as fit in the window and budgets
+            runScheduler.runScheduledJob();
+        } else {
+            aspnIdUpdater.runBatchJob();
+        }
         // Exit after processing - since this will be run as a job
         // System.exit(0);
     }
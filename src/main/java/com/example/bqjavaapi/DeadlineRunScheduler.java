@@ -0,0 +1,511 @@
+package com.example.bqjavaapi;
+
+import com.google.cloud.bigquery.BigQueryException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+@Service
+public class DeadlineRunScheduler {
+    private static final Logger logger = LoggerFactory.getLogger(DeadlineRunScheduler.class);
+
+    // Weight given to the newest sample when smoothing observed latencies and costs
+    private static final double EWMA_WEIGHT = 0.2;
+
+    // BigQuery bills every DML statement at least 10 MB, used until real updates have been observed
+    private static final long MIN_BYTES_PER_UPDATE = 10L * 1024 * 1024;
+
+    // Reason BigQuery reports when a query is rejected by its maximum bytes billed
+    private static final String BYTES_LIMIT_EXCEEDED = "bytesBilledLimitExceeded";
+
+    private final BigQueryService bqService;
+    private final ApiClientService apiService;
+    private final boolean enabled;
+    private final Duration window;
+    private final String deadline;
+    private final long maxApiCalls;
+    private final long maxBytesBilled;
+    private final int minPageSize;
+    private final int maxPageSize;
+    private final int minConcurrency;
+    private final int maxConcurrency;
+    private final int writeBackConcurrency;
+    private final Duration safetyMargin;
+
+    public DeadlineRunScheduler(BigQueryService bqService, ApiClientService apiService,
+                                @Value("${app.schedule.enabled:false}") boolean enabled,
+                                @Value("${app.schedule.window-minutes:60}") long windowMinutes,
+                                @Value("${app.schedule.deadline:}") String deadline,
+                                @Value("${app.schedule.max-api-calls:0}") long maxApiCalls,
+                                @Value("${app.schedule.max-bytes-billed:0}") long maxBytesBilled,
+                                @Value("${app.schedule.min-page-size:50}") int minPageSize,
+                                @Value("${app.schedule.max-page-size:${app.batch-size:1000}}") int maxPageSize,
+                                @Value("${app.schedule.min-concurrency:2}") int minConcurrency,
+                                @Value("${app.schedule.max-concurrency:${app.concurrency:10}}") int maxConcurrency,
+                                @Value("${app.schedule.write-back-concurrency:${app.concurrency:10}}") int writeBackConcurrency,
+                                @Value("${app.schedule.safety-margin-ms:5000}") long safetyMarginMs) {
+        requireAtLeastOne("app.schedule.min-page-size", minPageSize);
+        requireAtLeastOne("app.schedule.min-concurrency", minConcurrency);
+        requireAtLeastOne("app.schedule.write-back-concurrency", writeBackConcurrency);
+        if (deadline.isBlank()) {
+            requireAtLeastOne("app.schedule.window-minutes", windowMinutes);
+        } else {
+            // Fail fast on a malformed deadline rather than when the job starts
+            parseDeadline(deadline);
+        }
+        if (safetyMarginMs < 0) {
+            throw new IllegalArgumentException("app.schedule.safety-margin-ms must not be negative, was " + safetyMarginMs);
+        }
+
+        this.bqService = bqService;
+        this.apiService = apiService;
+        this.enabled = enabled;
+        this.window = Duration.ofMinutes(windowMinutes);
+        this.deadline = deadline.trim();
+        this.maxApiCalls = maxApiCalls;
+        this.maxBytesBilled = maxBytesBilled;
+        this.minPageSize = minPageSize;
+        this.maxPageSize = Math.max(minPageSize, maxPageSize);
+        this.minConcurrency = minConcurrency;
+        this.maxConcurrency = Math.max(minConcurrency, maxConcurrency);
+        this.writeBackConcurrency = writeBackConcurrency;
+        this.safetyMargin = Duration.ofMillis(safetyMarginMs);
+        logger.info("Initialized DeadlineRunScheduler with enabled={}, deadline={}, windowMinutes={}, maxApiCalls={}, maxBytesBilled={}, pageSize={}..{}, concurrency={}..{}, writeBackConcurrency={}, safetyMarginMs={}",
+                enabled, this.deadline.isEmpty() ? "none" : this.deadline, windowMinutes, maxApiCalls, maxBytesBilled, minPageSize, this.maxPageSize,
+                minConcurrency, this.maxConcurrency, writeBackConcurrency, safetyMarginMs);
+    }
+
+    private static void requireAtLeastOne(String property, long value) {
+        if (value < 1) {
+            throw new IllegalArgumentException(property + " must be at least 1, was " + value);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Runs until the configured deadline, or for window-minutes when no deadline is set, and logs the budget used
+     */
+    public void runScheduledJob() throws InterruptedException {
+        run(resolveDeadline()).log();
+    }
+
+    /**
+     * Resolves app.schedule.deadline to an instant
+     * - An ISO instant (2026-10-19T05:00:00Z) is used as is
+     * - A local date-time (2026-10-19T05:00) or local time (05:00) is taken in the system time zone;
+     *   a local time means today, so a job started after it admits no work
+     * - Without a deadline the run ends window-minutes after it starts
+     */
+    Instant resolveDeadline() {
+        if (deadline.isEmpty()) {
+            return Instant.now().plus(window);
+        }
+        Object parsed = parseDeadline(deadline);
+        ZoneId zone = ZoneId.systemDefault();
+        if (parsed instanceof Instant instant) {
+            return instant;
+        }
+        if (parsed instanceof LocalDateTime dateTime) {
+            return dateTime.atZone(zone).toInstant();
+        }
+        return LocalDate.now(zone).atTime((LocalTime) parsed).atZone(zone).toInstant();
+    }
+
+    private static Object parseDeadline(String value) {
+        try {
+            return Instant.parse(value.trim());
+        } catch (DateTimeParseException ignored) {
+            // Not an instant, try the local forms
+        }
+        try {
+            return LocalDateTime.parse(value.trim());
+        } catch (DateTimeParseException ignored) {
+            // Not a local date-time either
+        }
+        try {
+            return LocalTime.parse(value.trim());
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("app.schedule.deadline must be an ISO instant, local date-time or local time, was '"
+                    + value + "'", e);
+        }
+    }
+
+    /**
+     * Processes as many records as fit before the deadline and within the budgets
+     * - Fetches pages sized from observed throughput and the time left
+     * - Adjusts API concurrency between pages based on whether throughput improved
+     * - Queues BigQuery updates on a separate pool and stops admitting new records
+     *   once the estimated time or bytes to flush them would exceed the deadline or budget
+     *
+     * @param deadline wall-clock time by which all write-backs must be done
+     * @return the budget used by the run
+     */
+    RunReport run(Instant deadline) throws InterruptedException {
+        logger.info("Starting scheduled run - deadline={}, maxApiCalls={}, maxBytesBilled={}",
+                deadline, maxApiCalls > 0 ? maxApiCalls : "unlimited", maxBytesBilled > 0 ? maxBytesBilled : "unlimited");
+
+        RunState state = new RunState(deadline);
+        ExecutorService apiPool = Executors.newFixedThreadPool(maxConcurrency);
+        ExecutorService writeBackPool = Executors.newFixedThreadPool(writeBackConcurrency);
+
+        int concurrency = Math.max(minConcurrency, Math.min(maxConcurrency, maxConcurrency / 2));
+        double lastThroughput = 0;
+        int direction = 1;
+        String afterUuid = null;
+
+        try {
+            while (state.stopReason == null) {
+                if (!checkAdmission(state)) {
+                    break;
+                }
+
+                int pageSize = nextPageSize(state);
+                // Never let a fetch eat into bytes already reserved for pending write-backs
+                Long bytesCap = maxBytesBilled > 0 ? remainingBytes(state) - reservedBytes(state, 0) : null;
+                List<Record> page;
+                try {
+                    page = bqService.fetchRecordsNeedingAspnId(afterUuid, pageSize, bytesCap, state.bytesBilled);
+                } catch (BigQueryException e) {
+                    if (BYTES_LIMIT_EXCEEDED.equals(e.getReason())) {
+                        state.stopReason = "BigQuery bytes budget exhausted";
+                    } else {
+                        logger.error("Fetch failed, ending scheduled run", e);
+                        state.stopReason = "fetch failed: " + e.getMessage();
+                    }
+                    break;
+                }
+                state.pagesFetched++;
+                if (page.isEmpty()) {
+                    state.stopReason = "no more records";
+                    break;
+                }
+                afterUuid = page.get(page.size() - 1).getUuid();
+
+                Instant pageStart = Instant.now();
+                int admitted = processPage(page, concurrency, state, apiPool, writeBackPool);
+                double seconds = Math.max(0.001, Duration.between(pageStart, Instant.now()).toMillis() / 1000.0);
+                double throughput = admitted / seconds;
+                state.recordThroughput(throughput);
+
+                // Hill-climb concurrency: keep moving while throughput improves, reverse when it drops
+                if (lastThroughput > 0 && throughput < lastThroughput * 0.95) {
+                    direction = -direction;
+                }
+                concurrency = Math.max(minConcurrency, Math.min(maxConcurrency, concurrency + direction));
+                lastThroughput = throughput;
+
+                logger.info("Page of {} admitted {} records at {} records/s, next concurrency={}, pending write-backs={}",
+                        page.size(), admitted, String.format("%.1f", throughput), concurrency, state.pendingWriteBacks.get());
+            }
+        } finally {
+            apiPool.shutdown();
+            if (!apiPool.awaitTermination(timeUntil(deadline).toMillis(), TimeUnit.MILLISECONDS)) {
+                apiPool.shutdownNow();
+            }
+            writeBackPool.shutdown();
+            if (!writeBackPool.awaitTermination(timeUntil(deadline).toMillis(), TimeUnit.MILLISECONDS)) {
+                // Queued updates that never started are unflushed; running ones are interrupted
+                List<Runnable> notStarted = writeBackPool.shutdownNow();
+                state.unflushedWriteBacks.addAndGet(notStarted.size());
+                logger.warn("Deadline reached with {} write-backs not started", notStarted.size());
+            }
+        }
+
+        return new RunReport(state, deadline, maxApiCalls, maxBytesBilled);
+    }
+
+    /**
+     * Submits a page to the API pool, admitting one record at a time while time and budgets allow
+     * @return number of records admitted
+     */
+    private int processPage(List<Record> page, int concurrency, RunState state,
+                            ExecutorService apiPool, ExecutorService writeBackPool) throws InterruptedException {
+        Semaphore permits = new Semaphore(concurrency);
+        List<Future<?>> futures = new ArrayList<>();
+        int admitted = 0;
+
+        for (Record record : page) {
+            permits.acquire();
+            if (!checkAdmission(state)) {
+                permits.release();
+                break;
+            }
+            state.apiCallsUsed.incrementAndGet();
+            state.inFlightApiCalls.incrementAndGet();
+            admitted++;
+            futures.add(apiPool.submit(() -> {
+                try {
+                    resolveRecord(record, state, writeBackPool);
+                } finally {
+                    permits.release();
+                }
+            }));
+        }
+
+        // Wait for this page's API calls so the next page is sized from fresh observations
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException ex) {
+                logger.error("Error processing record", ex.getCause());
+            }
+        }
+        return admitted;
+    }
+
+    /**
+     * Calls the API for one record and queues a write-back if an ASPN_ID was found
+     */
+    private void resolveRecord(Record record, RunState state, ExecutorService writeBackPool) {
+        try {
+            long start = System.nanoTime();
+            Optional<String> aspnIdOpt = apiService.fetchAspnId(record.getRxDataId());
+            state.apiLatencyMs.update(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+            if (aspnIdOpt.isEmpty()) {
+                state.notFound.incrementAndGet();
+                return;
+            }
+
+            // Counted as pending before leaving in-flight so the flush estimate never misses it
+            state.pendingWriteBacks.incrementAndGet();
+            try {
+                writeBackPool.submit(() -> writeBack(record.getUuid(), aspnIdOpt.get(), state));
+            } catch (RejectedExecutionException e) {
+                state.pendingWriteBacks.decrementAndGet();
+                state.unflushedWriteBacks.incrementAndGet();
+            }
+        } finally {
+            state.inFlightApiCalls.decrementAndGet();
+        }
+    }
+
+    /**
+     * Writes one ASPN_ID to BigQuery, recording its latency and bytes billed against this run
+     */
+    private void writeBack(String uuid, String aspnId, RunState state) {
+        long updateStart = System.nanoTime();
+        AtomicLong updateBytes = new AtomicLong();
+        try {
+            if (bqService.updateAspnId(uuid, aspnId, updateBytes)) {
+                state.updated.incrementAndGet();
+            } else if (Thread.currentThread().isInterrupted()) {
+                // Interrupted by shutdownNow at the deadline, not a BigQuery failure
+                state.updateInterrupted.incrementAndGet();
+            } else {
+                state.updateFailed.incrementAndGet();
+            }
+        } catch (RuntimeException e) {
+            // BigQueryException for quota, DML queue limits or permissions; nothing reads the pool's Future
+            logger.error("Error writing back ASPN_ID for record {}", uuid, e);
+            state.updateFailed.incrementAndGet();
+        } finally {
+            state.updateLatencyMs.update(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - updateStart));
+            state.bytesBilled.addAndGet(updateBytes.get());
+            if (updateBytes.get() > 0) {
+                state.bytesPerUpdate.update(updateBytes.get());
+            }
+            state.pendingWriteBacks.decrementAndGet();
+        }
+    }
+
+    /**
+     * Decides whether another record may be admitted, recording why not if it may not
+     */
+    private boolean checkAdmission(RunState state) {
+        if (state.stopReason != null) {
+            return false;
+        }
+        if (maxApiCalls > 0 && state.apiCallsUsed.get() >= maxApiCalls) {
+            state.stopReason = "API call budget exhausted";
+            return false;
+        }
+        // The candidate record may add one more update on top of those already pending or in flight
+        if (maxBytesBilled > 0 && remainingBytes(state) - reservedBytes(state, 1) < 0) {
+            state.stopReason = "BigQuery bytes budget exhausted";
+            return false;
+        }
+        if (Instant.now().plus(estimateFlushTime(state)).isAfter(state.deadline)) {
+            state.stopReason = "deadline approaching";
+            return false;
+        }
+        return true;
+    }
+
+    private long remainingBytes(RunState state) {
+        return maxBytesBilled - state.bytesBilled.get();
+    }
+
+    /**
+     * Projected bytes for write-backs that are queued, may still be queued by in-flight API calls,
+     * plus any additional records about to be admitted
+     */
+    private long reservedBytes(RunState state, int additional) {
+        long updates = state.pendingWriteBacks.get() + state.inFlightApiCalls.get() + additional;
+        return (long) (updates * state.bytesPerUpdate.get());
+    }
+
+    /**
+     * Time needed to finish in-flight API calls and drain queued write-backs, plus a safety margin
+     */
+    private Duration estimateFlushTime(RunState state) {
+        double apiMs = state.apiLatencyMs.get();
+        double updateMs = state.updateLatencyMs.get();
+        // Every in-flight API call, and the candidate record, may still queue a write-back
+        double queued = state.pendingWriteBacks.get() + state.inFlightApiCalls.get() + 1;
+        double drainMs = Math.ceil(queued / writeBackConcurrency) * updateMs;
+        return safetyMargin.plusMillis((long) (apiMs + drainMs));
+    }
+
+    /**
+     * Sizes the next page to roughly what can be processed in the admission time left
+     */
+    private int nextPageSize(RunState state) {
+        double throughput = state.throughput;
+        long size;
+        if (throughput > 0) {
+            Duration admitWindow = timeUntil(state.deadline).minus(estimateFlushTime(state));
+            size = (long) (throughput * Math.max(0, admitWindow.toMillis()) / 1000.0);
+        } else {
+            // No observations yet - start small to learn throughput quickly
+            size = minPageSize;
+        }
+        if (maxApiCalls > 0) {
+            size = Math.min(size, maxApiCalls - state.apiCallsUsed.get());
+        }
+        return (int) Math.max(minPageSize, Math.min(maxPageSize, size));
+    }
+
+    private static Duration timeUntil(Instant deadline) {
+        Duration remaining = Duration.between(Instant.now(), deadline);
+        return remaining.isNegative() ? Duration.ZERO : remaining;
+    }
+
+    /**
+     * Mutable bookkeeping for a single run
+     */
+    private static class RunState {
+        private final Instant startTime = Instant.now();
+        private final Instant deadline;
+
+        private final AtomicLong apiCallsUsed = new AtomicLong();
+        private final AtomicLong bytesBilled = new AtomicLong();
+        private final AtomicInteger inFlightApiCalls = new AtomicInteger();
+        private final AtomicInteger pendingWriteBacks = new AtomicInteger();
+        private final AtomicInteger unflushedWriteBacks = new AtomicInteger();
+        private final AtomicInteger updated = new AtomicInteger();
+        private final AtomicInteger updateFailed = new AtomicInteger();
+        private final AtomicInteger updateInterrupted = new AtomicInteger();
+        private final AtomicInteger notFound = new AtomicInteger();
+        private final Ewma apiLatencyMs = new Ewma(300);
+        private final Ewma updateLatencyMs = new Ewma(1000);
+        private final Ewma bytesPerUpdate = new Ewma(MIN_BYTES_PER_UPDATE);
+        private volatile double throughput;
+        private volatile String stopReason;
+        private int pagesFetched;
+
+        RunState(Instant deadline) {
+            this.deadline = deadline;
+        }
+
+        void recordThroughput(double observed) {
+            throughput = throughput == 0 ? observed : EWMA_WEIGHT * observed + (1 - EWMA_WEIGHT) * throughput;
+        }
+    }
+
+    /**
+     * Exponentially weighted moving average seeded with a conservative initial guess
+     */
+    private static class Ewma {
+        private double value;
+
+        Ewma(double initial) {
+            this.value = initial;
+        }
+
+        synchronized void update(double sample) {
+            value = EWMA_WEIGHT * sample + (1 - EWMA_WEIGHT) * value;
+        }
+
+        synchronized double get() {
+            return value;
+        }
+    }
+
+    /**
+     * Budget used by a single scheduled run
+     */
+    static class RunReport {
+        private final Duration elapsed;
+        private final Duration window;
+        private final String stopReason;
+        private final int pagesFetched;
+        private final long apiCallsUsed;
+        private final long apiCallBudget;
+        private final long bytesBilled;
+        private final long bytesBudget;
+        private final int updated;
+        private final int updateFailed;
+        private final int updateInterrupted;
+        private final int notFound;
+        private final int unflushedWriteBacks;
+
+        private RunReport(RunState state, Instant deadline, long apiCallBudget, long bytesBudget) {
+            this.elapsed = Duration.between(state.startTime, Instant.now());
+            this.window = Duration.between(state.startTime, deadline);
+            this.stopReason = state.stopReason;
+            this.pagesFetched = state.pagesFetched;
+            this.apiCallsUsed = state.apiCallsUsed.get();
+            this.apiCallBudget = apiCallBudget;
+            this.bytesBilled = state.bytesBilled.get();
+            this.bytesBudget = bytesBudget;
+            this.updated = state.updated.get();
+            this.updateFailed = state.updateFailed.get();
+            this.updateInterrupted = state.updateInterrupted.get();
+            this.notFound = state.notFound.get();
+            this.unflushedWriteBacks = state.unflushedWriteBacks.get();
+        }
+
+        String getStopReason() { return stopReason; }
+        int getPagesFetched() { return pagesFetched; }
+        long getApiCallsUsed() { return apiCallsUsed; }
+        long getBytesBilled() { return bytesBilled; }
+        int getUpdated() { return updated; }
+        int getUpdateFailed() { return updateFailed; }
+        int getNotFound() { return notFound; }
+        int getUnflushedWriteBacks() { return unflushedWriteBacks; }
+
+        void log() {
+            logger.info("=== SCHEDULED RUN REPORT ===");
+            logger.info("Elapsed: {} ms of {} ms window", elapsed.toMillis(), window.toMillis());
+            logger.info("Stop reason: {}", stopReason);
+            logger.info("Pages fetched: {}", pagesFetched);
+            logger.info("API calls used: {} / {}", apiCallsUsed, apiCallBudget > 0 ? apiCallBudget : "unlimited");
+            logger.info("BigQuery bytes billed: {} / {}", bytesBilled, bytesBudget > 0 ? bytesBudget : "unlimited");
+            logger.info("Records updated: {}", updated);
+            logger.info("Updates failed: {}", updateFailed);
+            logger.info("Updates interrupted at deadline: {}", updateInterrupted);
+            logger.info("API calls without ASPN_ID: {}", notFound);
+            logger.info("Write-backs not flushed before deadline: {}", unflushedWriteBacks);
+            logger.info("============================");
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.bqjavaapi;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.config.YamlPropertiesFactoryBean;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.core.io.ClassPathResource;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Load test for the online lookup path against the mock API (50-300ms per call)
+ * Sends lookups at a steady rate over a spread of ids and checks p99 latency against
+ * the app.lookup.slo-ms configured in application.yaml
+ */
+class AspnLookupLoadTest {
+
+    private static final int REQUESTS = 1000;
+    private static final int REQUESTS_PER_SECOND = 200;
+    private static final int DISTINCT_IDS = 500;
+    private static final int CONCURRENCY = 50;
+
+    @Test
+    void p99LatencyIsWithinSloAgainstMockApi() throws Exception {
+        long sloMs = configuredSloMs();
+        ApiClientService mockApi = new ApiClientService("http://mock-api.example.com", true, "", "",
+                new RestTemplateBuilder());
+        AspnLookupService service = new AspnLookupService(mockApi, mock(BigQueryService.class),
+                50, 10, 5000, 5000, 10000, 30000, false, 1000, sloMs, CONCURRENCY);
+        service.start();
+
+        List<Long> latenciesMs = Collections.synchronizedList(new ArrayList<>());
+        List<CompletableFuture<Optional<String>>> futures = new ArrayList<>();
+        Random random = new Random(42);
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / REQUESTS_PER_SECOND;
+        try {
+            long start = System.nanoTime();
+            for (int i = 0; i < REQUESTS; i++) {
+                // Open-loop arrivals: each request is sent on schedule regardless of earlier responses
+                long waitNanos = start + i * intervalNanos - System.nanoTime();
+                if (waitNanos > 0) {
+                    TimeUnit.NANOSECONDS.sleep(waitNanos);
+                }
+                long sentAt = System.nanoTime();
+                futures.add(service.lookup(String.valueOf(random.nextInt(DISTINCT_IDS)), null)
+                        .whenComplete((result, ex) ->
+                                latenciesMs.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - sentAt))));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get(30, TimeUnit.SECONDS);
+        } finally {
+            service.shutdown();
+        }
+
+        List<Long> sorted = new ArrayList<>(latenciesMs);
+        Collections.sort(sorted);
+        long p99 = sorted.get((int) Math.ceil(sorted.size() * 0.99) - 1);
+
+        assertEquals(REQUESTS, sorted.size());
+        assertTrue(p99 <= sloMs, "p99 latency " + p99 + " ms exceeds SLO of " + sloMs + " ms");
+        assertTrue(service.getApiCalls() <= DISTINCT_IDS, "each distinct id should be fetched at most once");
+    }
+
+    private static long configuredSloMs() {
+        YamlPropertiesFactoryBean yaml = new YamlPropertiesFactoryBean();
+        yaml.setResources(new ClassPathResource("application.yaml"));
+        Properties properties = yaml.getObject();
+        assertNotNull(properties);
+        return Long.parseLong(properties.getProperty("app.lookup.slo-ms"));
+    }
+}
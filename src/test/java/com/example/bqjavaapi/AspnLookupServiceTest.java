@@ -0,0 +1,146 @@
+package com.example.bqjavaapi;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.RestClientException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class AspnLookupServiceTest {
+
+    private final ApiClientService apiService = mock(ApiClientService.class);
+    private final BigQueryService bqService = mock(BigQueryService.class);
+    private AspnLookupService service;
+
+    private AspnLookupService startService(int maxBatchSize, long maxWaitMs, boolean writeBack) {
+        service = new AspnLookupService(apiService, bqService, maxBatchSize, maxWaitMs,
+                1000, 5000, 1000, 30000, writeBack, 1000, 500, 10);
+        service.start();
+        return service;
+    }
+
+    private void stubApi(long latencyMs) {
+        when(apiService.resolveAspnId(anyString())).thenAnswer(invocation -> {
+            Thread.sleep(latencyMs);
+            return Optional.of("ASPN_" + invocation.getArgument(0, String.class));
+        });
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        if (service != null) {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    void concurrentIdenticalIdsResultInOneApiCall() throws Exception {
+        stubApi(200);
+        startService(50, 10, false);
+
+        List<CompletableFuture<Optional<String>>> futures = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            futures.add(service.lookup("12345", null));
+            // Spread requests over several batches so dedupe across in-flight calls is exercised too
+            if (i % 20 == 0) {
+                Thread.sleep(15);
+            }
+        }
+
+        for (CompletableFuture<Optional<String>> future : futures) {
+            assertEquals(Optional.of("ASPN_12345"), future.get(2, TimeUnit.SECONDS));
+        }
+        verify(apiService, times(1)).resolveAspnId("12345");
+        assertTrue(service.getBatchesDispatched() > 1, "requests should span several batches");
+    }
+
+    @Test
+    void batchesAreBoundedByMaxBatchSize() throws Exception {
+        stubApi(0);
+        startService(5, 1000, false);
+
+        List<CompletableFuture<Optional<String>>> futures = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            futures.add(service.lookup("id-" + i, null));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get(3, TimeUnit.SECONDS);
+
+        // Two full batches dispatch without waiting for maxWaitMs
+        assertEquals(2, service.getBatchesDispatched());
+        assertEquals(10, service.getApiCalls());
+    }
+
+    @Test
+    void partialBatchIsDispatchedAfterMaxWait() throws Exception {
+        stubApi(0);
+        startService(100, 50, false);
+
+        long start = System.nanoTime();
+        Optional<String> result = service.lookup("42", null).get(2, TimeUnit.SECONDS);
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals(Optional.of("ASPN_42"), result);
+        assertEquals(1, service.getBatchesDispatched());
+        assertTrue(elapsedMs >= 50, "batch should wait for maxWaitMs, took " + elapsedMs + " ms");
+    }
+
+    @Test
+    void notFoundResultsAreCached() throws Exception {
+        when(apiService.resolveAspnId(anyString())).thenReturn(Optional.empty());
+        startService(50, 10, false);
+
+        assertEquals(Optional.empty(), service.lookup("missing", null).get(2, TimeUnit.SECONDS));
+        assertEquals(Optional.empty(), service.lookup("missing", null).get(2, TimeUnit.SECONDS));
+
+        verify(apiService, times(1)).resolveAspnId("missing");
+    }
+
+    @Test
+    void apiFailuresAreNotCachedAsNotFound() throws Exception {
+        when(apiService.resolveAspnId(anyString()))
+                .thenThrow(new RestClientException("API unavailable"))
+                .thenReturn(Optional.of("ASPN_5"));
+        startService(50, 10, false);
+
+        ExecutionException ex = assertThrows(ExecutionException.class,
+                () -> service.lookup("5", null).get(2, TimeUnit.SECONDS));
+        assertInstanceOf(RestClientException.class, ex.getCause());
+        assertEquals(Optional.of("ASPN_5"), service.lookup("5", null).get(2, TimeUnit.SECONDS));
+
+        verify(apiService, times(2)).resolveAspnId("5");
+    }
+
+    @Test
+    void writeBacksAreDedupedByUuid() throws Exception {
+        stubApi(0);
+        when(bqService.updateAspnId(anyString(), anyString())).thenReturn(true);
+        startService(50, 10, true);
+
+        for (int i = 0; i < 5; i++) {
+            service.lookup("777", "uuid-1").get(2, TimeUnit.SECONDS);
+        }
+
+        verify(bqService, timeout(1000).times(1)).updateAspnId("uuid-1", "ASPN_777");
+        verify(bqService, after(200).times(1)).updateAspnId(anyString(), anyString());
+    }
+
+    @Test
+    void lookupsAfterShutdownFail() throws Exception {
+        stubApi(0);
+        startService(50, 10, false);
+        service.shutdown();
+
+        CompletableFuture<Optional<String>> future = service.lookup("1", null);
+        assertTrue(future.isCompletedExceptionally());
+        service = null;
+    }
+}
@@ -0,0 +1,183 @@
+package com.example.bqjavaapi;
+
+import com.google.cloud.bigquery.BigQueryError;
+import com.google.cloud.bigquery.BigQueryException;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class DeadlineRunSchedulerTest {
+
+    private static final long TEN_MB = 10L * 1024 * 1024;
+
+    private final ApiClientService apiService = mock(ApiClientService.class);
+    private final BigQueryService bqService = mock(BigQueryService.class);
+
+    private DeadlineRunScheduler scheduler(long maxApiCalls, long maxBytesBilled, long safetyMarginMs) {
+        return new DeadlineRunScheduler(bqService, apiService, true, 60, "", maxApiCalls, maxBytesBilled,
+                10, 100, 2, 4, 2, safetyMarginMs);
+    }
+
+    /**
+     * Serves an endless table (or one of totalRecords rows) in uuid order, honouring afterUuid and limit
+     */
+    private void stubRecords(int totalRecords) throws InterruptedException {
+        when(bqService.fetchRecordsNeedingAspnId(any(), anyInt(), any(), any())).thenAnswer(invocation -> {
+            String afterUuid = invocation.getArgument(0);
+            int limit = invocation.getArgument(1);
+            int next = afterUuid == null ? 0 : Integer.parseInt(afterUuid.substring("uuid-".length())) + 1;
+            List<Record> page = new ArrayList<>();
+            for (int i = next; i < next + limit && i < totalRecords; i++) {
+                page.add(new Record(String.format("uuid-%06d", i), String.valueOf(i)));
+            }
+            return page;
+        });
+    }
+
+    /**
+     * Every update succeeds after updateMs and is billed bytesPerUpdate to the run's accumulator
+     */
+    private void stubUpdates(long updateMs, long bytesPerUpdate) {
+        when(bqService.updateAspnId(anyString(), anyString(), any())).thenAnswer(invocation -> {
+            Thread.sleep(updateMs);
+            AtomicLong bytesBilled = invocation.getArgument(2);
+            bytesBilled.addAndGet(bytesPerUpdate);
+            return true;
+        });
+    }
+
+    private void stubApiFound() {
+        when(apiService.fetchAspnId(anyString())).thenAnswer(invocation -> Optional.of("ASPN_" + invocation.getArgument(0)));
+    }
+
+    @Test
+    void stopsOnApiCallBudget() throws Exception {
+        stubRecords(Integer.MAX_VALUE);
+        stubApiFound();
+        stubUpdates(0, 0);
+
+        DeadlineRunScheduler.RunReport report = scheduler(25, 0, 0).run(Instant.now().plusSeconds(30));
+
+        assertEquals("API call budget exhausted", report.getStopReason());
+        assertEquals(25, report.getApiCallsUsed());
+        assertEquals(25, report.getUpdated());
+        verify(apiService, times(25)).fetchAspnId(anyString());
+    }
+
+    @Test
+    void bytesBudgetReservesPendingAndInFlightUpdates() throws Exception {
+        stubRecords(Integer.MAX_VALUE);
+        stubApiFound();
+        // Slow updates: nothing is billed yet while records are admitted, so only the reserve can stop them
+        stubUpdates(200, TEN_MB);
+        long budget = 5 * TEN_MB;
+
+        DeadlineRunScheduler.RunReport report = scheduler(0, budget, 0).run(Instant.now().plusSeconds(30));
+
+        assertEquals("BigQuery bytes budget exhausted", report.getStopReason());
+        assertEquals(5, report.getApiCallsUsed());
+        assertEquals(5, report.getUpdated());
+        assertTrue(report.getBytesBilled() <= budget, "billed " + report.getBytesBilled() + " over budget " + budget);
+    }
+
+    @Test
+    void stopsWhenFetchHitsMaximumBytesBilled() throws Exception {
+        when(bqService.fetchRecordsNeedingAspnId(any(), anyInt(), any(), any())).thenThrow(new BigQueryException(
+                400, "Query exceeded limit for bytes billed",
+                new BigQueryError("bytesBilledLimitExceeded", "global", "Query exceeded limit for bytes billed")));
+
+        DeadlineRunScheduler.RunReport report = scheduler(0, TEN_MB * 100, 0).run(Instant.now().plusSeconds(30));
+
+        assertEquals("BigQuery bytes budget exhausted", report.getStopReason());
+        assertEquals(0, report.getPagesFetched());
+        verifyNoInteractions(apiService);
+    }
+
+    @Test
+    void reportsFetchFailure() throws Exception {
+        when(bqService.fetchRecordsNeedingAspnId(any(), anyInt(), any(), any()))
+                .thenThrow(new BigQueryException(500, "Backend error"));
+
+        DeadlineRunScheduler.RunReport report = scheduler(0, 0, 0).run(Instant.now().plusSeconds(30));
+
+        assertTrue(report.getStopReason().startsWith("fetch failed"), report.getStopReason());
+        assertEquals(0, report.getApiCallsUsed());
+    }
+
+    @Test
+    void stopsAdmittingBeforeDeadline() throws Exception {
+        stubRecords(Integer.MAX_VALUE);
+        when(apiService.fetchAspnId(anyString())).thenAnswer(invocation -> {
+            Thread.sleep(20);
+            return Optional.of("ASPN_1");
+        });
+        stubUpdates(20, 0);
+        Instant deadline = Instant.now().plusSeconds(3);
+
+        DeadlineRunScheduler.RunReport report = scheduler(0, 0, 200).run(deadline);
+
+        assertEquals("deadline approaching", report.getStopReason());
+        assertTrue(Instant.now().isBefore(deadline), "run should finish, write-backs included, before the deadline");
+        assertTrue(report.getUpdated() > 0);
+        assertEquals(0, report.getUnflushedWriteBacks());
+    }
+
+    @Test
+    void reportCountsUpdatesFailuresAndNotFound() throws Exception {
+        stubRecords(10);
+        // Even rxDataIds have an ASPN_ID, odd ones do not
+        when(apiService.fetchAspnId(anyString())).thenAnswer(invocation -> {
+            int id = Integer.parseInt(invocation.getArgument(0));
+            return id % 2 == 0 ? Optional.of("ASPN_" + id) : Optional.empty();
+        });
+        stubUpdates(0, 0);
+        when(bqService.updateAspnId(eq("uuid-000002"), anyString(), any())).thenReturn(false);
+        when(bqService.updateAspnId(eq("uuid-000004"), anyString(), any()))
+                .thenThrow(new BigQueryException(400, "Too many DML statements"));
+
+        DeadlineRunScheduler.RunReport report = scheduler(0, 0, 0).run(Instant.now().plusSeconds(30));
+
+        assertEquals("no more records", report.getStopReason());
+        assertEquals(10, report.getApiCallsUsed());
+        assertEquals(5, report.getNotFound());
+        assertEquals(3, report.getUpdated());
+        assertEquals(2, report.getUpdateFailed());
+        assertEquals(0, report.getUnflushedWriteBacks());
+    }
+
+    @Test
+    void rejectsSettingsThatWouldStallTheRun() {
+        assertThrows(IllegalArgumentException.class, () -> new DeadlineRunScheduler(bqService, apiService,
+                true, 60, "", 0, 0, 10, 100, 0, 4, 2, 0));
+        assertThrows(IllegalArgumentException.class, () -> new DeadlineRunScheduler(bqService, apiService,
+                true, 60, "", 0, 0, 0, 100, 2, 4, 2, 0));
+        assertThrows(IllegalArgumentException.class, () -> new DeadlineRunScheduler(bqService, apiService,
+                true, 60, "", 0, 0, 10, 100, 2, 4, 0, 0));
+        assertThrows(IllegalArgumentException.class, () -> new DeadlineRunScheduler(bqService, apiService,
+                true, 60, "tomorrow morning", 0, 0, 10, 100, 2, 4, 2, 0));
+    }
+
+    @Test
+    void resolvesAbsoluteDeadlineIndependentOfStartTime() {
+        DeadlineRunScheduler fixed = new DeadlineRunScheduler(bqService, apiService,
+                true, 60, "2026-10-19T05:00:00Z", 0, 0, 10, 100, 2, 4, 2, 0);
+        assertEquals(Instant.parse("2026-10-19T05:00:00Z"), fixed.resolveDeadline());
+
+        // Without a deadline the window is relative to the start of the run
+        DeadlineRunScheduler relative = scheduler(0, 0, 0);
+        Instant before = Instant.now();
+        Instant resolved = relative.resolveDeadline();
+        Instant after = Instant.now();
+        assertFalse(resolved.isBefore(before.plus(Duration.ofMinutes(60))));
+        assertFalse(resolved.isAfter(after.plus(Duration.ofMinutes(60))));
+    }
+}